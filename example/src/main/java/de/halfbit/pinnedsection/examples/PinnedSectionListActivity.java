@@ -84,6 +84,9 @@ public class PinnedSectionListActivity extends ListActivity implements OnClickLi
         protected void onSectionAdded(Item section, int sectionPosition) { }
 
         @Override public View getView(int position, View convertView, ViewGroup parent) {
+            if (convertView == null && parent instanceof PinnedSectionListView) { // use view inflated in background
+                convertView = ((PinnedSectionListView) parent).takePreinflatedView(getItemViewType(position));
+            }
             TextView view = (TextView) super.getView(position, convertView, parent);
             view.setTextColor(Color.DKGRAY);
             view.setTag("" + position);
@@ -184,8 +187,9 @@ public class PinnedSectionListActivity extends ListActivity implements OnClickLi
 		    isShadowVisible = savedInstanceState.getBoolean("isShadowVisible");
 		    hasHeaderAndFooter = savedInstanceState.getBoolean("hasHeaderAndFooter");
 		}
-		initializeHeaderAndFooter();
-		initializeAdapter();
+		initializeHeaderAndFooter(); // sets adapter too
+		((PinnedSectionListView) getListView()).preinflatePinnedViews(
+		        Item.SECTION, android.R.layout.simple_list_item_1, 4);
 		initializePadding();
 	}
 
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2013-2016 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.halfbit.pinnedsection;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.SectionIndexer;
+
+import java.util.HashMap;
+
+import de.halfbit.pinnedsection.PinnedSectionListView.PinnedSectionListAdapter;
+
+/**
+ * Adapter with pinned sections, which can be expanded and collapsed. Visible row counts of
+ * sections are kept in a Fenwick tree, so that mapping of a list position to a (section, child)
+ * pair as well as expanding or collapsing a section are O(log n). The adapter is also a
+ * {@link SectionIndexer}, which lets {@link PinnedSectionListView} find pinned sections
+ * without scanning.
+ *
+ * <p>Call {@link #notifyDataSetChanged()} when sections or children change. Expanding or
+ * collapsing does not require it.</p>
+ */
+public abstract class CollapsibleSectionListAdapter extends BaseAdapter
+        implements PinnedSectionListAdapter, SectionIndexer {
+
+    public static final int VIEW_TYPE_CHILD = 0;
+    public static final int VIEW_TYPE_SECTION = 1;
+
+    //-- class fields
+
+    private final FenwickTree mRows = new FenwickTree();
+
+    // cached structure, updated in notifyDataSetChanged() only
+    private int[] mChildCounts = new int[0];
+    private boolean[] mExpanded = new boolean[0];
+    private long[] mSectionIds = new long[0];
+    private int mSectionCount;
+    private boolean mStructureValid;
+
+    // last resolved position, list asks for type, view and id of the same position in a row
+    private int mCachedPosition = -1;
+    private int mCachedSection;
+    private int mCachedSectionStart;
+
+    private Object[] mSections;
+
+    // set while observers are notified about expanding or collapsing a section
+    private boolean mToggling;
+    private long mTogglingSectionId;
+
+    //-- abstract methods
+
+    public abstract int getSectionCount();
+    public abstract int getChildCount(int section);
+
+    public abstract Object getSectionItem(int section);
+    public abstract Object getChildItem(int section, int child);
+
+    public abstract View getSectionView(int section, boolean expanded, View convertView, ViewGroup parent);
+    public abstract View getChildView(int section, int child, View convertView, ViewGroup parent);
+
+    //-- public API methods
+
+    public boolean isSectionExpanded(int section) {
+        ensureStructure();
+        return mExpanded[section];
+    }
+
+    public void toggleSection(int section) {
+        setSectionExpanded(section, !isSectionExpanded(section));
+    }
+
+    /** Expands or collapses given section in O(log n). */
+    public void setSectionExpanded(int section, boolean expanded) {
+        ensureStructure();
+        if (mExpanded[section] == expanded) return;
+        mExpanded[section] = expanded;
+        mRows.add(section, expanded ? mChildCounts[section] : -mChildCounts[section]);
+        mCachedPosition = -1;
+
+        mToggling = true;
+        mTogglingSectionId = mSectionIds[section];
+        try {
+            super.notifyDataSetChanged(); // structure is already up to date
+        } finally {
+            mToggling = false;
+        }
+    }
+
+    /** Returns child index for given position or -1, if position belongs to a section view. */
+    public int getChildForPosition(int position) {
+        resolvePosition(position);
+        return position - mCachedSectionStart - 1;
+    }
+
+    /** Override this method to provide a section expanded state after data change. */
+    protected boolean isSectionExpandedByDefault(int section) {
+        return true;
+    }
+
+    /**
+     * Returns stable id of given section. Expanded state is kept by section id when data changes,
+     * so override this method, if sections can be inserted or removed.
+     */
+    protected long getSectionId(int section) {
+        return ((long) section << 32) | 0xffffffffL;
+    }
+
+    protected long getChildId(int section, int child) {
+        return ((long) section << 32) | child;
+    }
+
+    /**
+     * Returns 'true' while observers are notified about expanding or collapsing a section other
+     * than the one with given id. View of that section stays the same, only its position can move.
+     */
+    boolean isSectionViewUnchanged(long sectionId) {
+        return mToggling && mTogglingSectionId != sectionId;
+    }
+
+    //-- adapter methods
+
+    @Override
+    public void notifyDataSetChanged() {
+        mStructureValid = false;
+        super.notifyDataSetChanged();
+    }
+
+    @Override
+    public void notifyDataSetInvalidated() {
+        mStructureValid = false;
+        super.notifyDataSetInvalidated();
+    }
+
+    @Override
+    public int getCount() {
+        ensureStructure();
+        return mRows.prefixSum(mSectionCount);
+    }
+
+    @Override
+    public Object getItem(int position) {
+        int child = getChildForPosition(position);
+        return child == -1 ? getSectionItem(mCachedSection) : getChildItem(mCachedSection, child);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        int child = getChildForPosition(position);
+        return child == -1 ? getSectionId(mCachedSection) : getChildId(mCachedSection, child);
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return 2;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return getChildForPosition(position) == -1 ? VIEW_TYPE_SECTION : VIEW_TYPE_CHILD;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        int child = getChildForPosition(position);
+        int section = mCachedSection;
+        return child == -1
+                ? getSectionView(section, mExpanded[section], convertView, parent)
+                : getChildView(section, child, convertView, parent);
+    }
+
+    @Override
+    public boolean isItemViewTypePinned(int viewType) {
+        return viewType == VIEW_TYPE_SECTION;
+    }
+
+    //-- section indexer methods
+
+    @Override
+    public Object[] getSections() {
+        ensureStructure();
+        if (mSections == null) {
+            mSections = new Object[mSectionCount];
+            for (int i = 0; i < mSectionCount; i++) mSections[i] = getSectionItem(i);
+        }
+        return mSections;
+    }
+
+    @Override
+    public int getPositionForSection(int section) {
+        ensureStructure();
+        if (section >= mSectionCount) section = mSectionCount - 1;
+        if (section < 0) return 0;
+        return mRows.prefixSum(section);
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        resolvePosition(position);
+        return mCachedSection;
+    }
+
+    //-- implementation methods
+
+    private void resolvePosition(int position) {
+        ensureStructure();
+        if (position == mCachedPosition) return;
+        int section = mRows.findIndex(position);
+        if (section >= mSectionCount) section = mSectionCount - 1; // position out of range
+        mCachedSection = section;
+        mCachedSectionStart = mRows.prefixSum(section);
+        mCachedPosition = position;
+    }
+
+    private void ensureStructure() {
+        if (mStructureValid) return;
+
+        // remember state of existing sections by their ids
+        HashMap<Long, Boolean> states = new HashMap<Long, Boolean>(mSectionCount * 2);
+        for (int i = 0; i < mSectionCount; i++) states.put(mSectionIds[i], mExpanded[i]);
+
+        int sectionCount = getSectionCount();
+        boolean[] expanded = new boolean[sectionCount];
+        long[] sectionIds = new long[sectionCount];
+        int[] childCounts = new int[sectionCount];
+        int[] rows = new int[sectionCount];
+        for (int i = 0; i < sectionCount; i++) {
+            // keep state of existing sections, initialize new ones
+            sectionIds[i] = getSectionId(i);
+            Boolean state = states.get(sectionIds[i]);
+            expanded[i] = state != null ? state : isSectionExpandedByDefault(i);
+            childCounts[i] = getChildCount(i);
+            rows[i] = 1 + (expanded[i] ? childCounts[i] : 0);
+        }
+
+        mRows.reset(rows, sectionCount);
+        mExpanded = expanded;
+        mSectionIds = sectionIds;
+        mChildCounts = childCounts;
+        mSectionCount = sectionCount;
+        mSections = null;
+        mCachedPosition = -1;
+        mStructureValid = true;
+    }
+
+}
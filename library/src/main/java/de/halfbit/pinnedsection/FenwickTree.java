@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2013-2016 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.halfbit.pinnedsection;
+
+/**
+ * Binary indexed tree over non-negative int values. Updates, prefix sums and
+ * lookups of an index by a prefix sum are all O(log n).
+ */
+final class FenwickTree {
+
+    /** Tree nodes, 1-based. */
+    private int[] mTree = new int[1];
+    private int mSize;
+
+    /** Highest power of two not greater than size, used for lookups. */
+    private int mTopBit;
+
+    /** Rebuilds tree from given values in O(n). */
+    void reset(int[] values, int size) {
+        if (mTree.length < size + 1) mTree = new int[size + 1];
+        mSize = size;
+        for (int i = 1; i <= size; i++) mTree[i] = values[i - 1];
+        for (int i = 1; i <= size; i++) {
+            int parent = i + (i & -i);
+            if (parent <= size) mTree[parent] += mTree[i];
+        }
+        mTopBit = size == 0 ? 0 : Integer.highestOneBit(size);
+    }
+
+    /** Adds delta to the value at given index. */
+    void add(int index, int delta) {
+        for (int i = index + 1; i <= mSize; i += i & -i) mTree[i] += delta;
+    }
+
+    /** Returns sum of first count values. */
+    int prefixSum(int count) {
+        int sum = 0;
+        for (int i = count; i > 0; i -= i & -i) sum += mTree[i];
+        return sum;
+    }
+
+    /** Returns index i such that prefixSum(i) <= sum < prefixSum(i + 1), or size, if sum is beyond total. */
+    int findIndex(int sum) {
+        int index = 0;
+        for (int bit = mTopBit; bit != 0; bit >>= 1) {
+            int next = index + bit;
+            if (next <= mSize && mTree[next] <= sum) {
+                index = next;
+                sum -= mTree[next];
+            }
+        }
+        return index;
+    }
+
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2013-2016 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.halfbit.pinnedsection;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.SectionIndexer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.halfbit.pinnedsection.PinnedSectionListView.PinnedSectionListAdapter;
+
+/**
+ * Adapter with pinned sections, which can be filtered in background. Sections without matching
+ * items are removed. Every filtering result comes with a prebuilt section index, which the adapter
+ * exposes as {@link SectionIndexer}, so {@link PinnedSectionListView} does not scan after results
+ * are published.
+ *
+ * <p>Use {@link #filter(CharSequence)} for search-as-you-type. It cancels filtering of outdated
+ * queries, and when a query only adds characters to the previous one, it filters previous results
+ * instead of the whole data set.</p>
+ *
+ * @param <S> section type
+ * @param <T> item type
+ */
+public abstract class FilterableSectionListAdapter<S, T> extends BaseAdapter
+        implements PinnedSectionListAdapter, SectionIndexer, Filterable {
+
+    public static final int VIEW_TYPE_ITEM = 0;
+    public static final int VIEW_TYPE_SECTION = 1;
+
+    //-- inner classes
+
+    /** Immutable snapshot of source data. */
+    static final class Source {
+        final Object[] sections;
+        final Object[][] items;
+
+        Source(Object[] sections, Object[][] items) {
+            this.sections = sections;
+            this.items = items;
+        }
+    }
+
+    /** Immutable filtered rows together with their section index. */
+    static final class Rows {
+        final Source source;
+        final String constraint;
+
+        // matching source indexes, used for narrowing next query
+        final int[] sourceSections;
+        final int[][] sourceItems;
+
+        // flattened rows and section index
+        final Object[] rows;
+        final int[] rowSections;
+        final int[] sectionPositions;
+        final Object[] sections;
+
+        Rows(Source source, String constraint, int[] sourceSections, int[][] sourceItems, int sectionCount) {
+            this.source = source;
+            this.constraint = constraint;
+            this.sourceSections = sourceSections;
+            this.sourceItems = sourceItems;
+
+            int count = 0;
+            for (int i = 0; i < sectionCount; i++) count += 1 + sourceItems[i].length;
+
+            rows = new Object[count];
+            rowSections = new int[count];
+            sectionPositions = new int[sectionCount];
+            sections = new Object[sectionCount];
+
+            int position = 0;
+            for (int i = 0; i < sectionCount; i++) {
+                Object section = source.sections[sourceSections[i]];
+                Object[] items = source.items[sourceSections[i]];
+                sections[i] = section;
+                sectionPositions[i] = position;
+                rowSections[position] = i;
+                rows[position++] = section;
+                for (int item : sourceItems[i]) {
+                    rowSections[position] = i;
+                    rows[position++] = items[item];
+                }
+            }
+        }
+    }
+
+    /** Filtered rows together with the filter generation they were produced in. */
+    static final class Result {
+        final Rows rows;
+        final int generation;
+
+        Result(Rows rows, int generation) {
+            this.rows = rows;
+            this.generation = generation;
+        }
+    }
+
+    /** Query together with the filter generation it was requested in on UI thread. */
+    static final class Query implements CharSequence {
+        final String text;
+        final int generation;
+
+        Query(String text, int generation) {
+            this.text = text;
+            this.generation = generation;
+        }
+
+        @Override public int length() { return text.length(); }
+        @Override public char charAt(int index) { return text.charAt(index); }
+        @Override public CharSequence subSequence(int start, int end) { return text.subSequence(start, end); }
+        @Override public String toString() { return text; }
+    }
+
+    /** Filter running on a worker thread. */
+    private class SectionFilter extends Filter {
+
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            // queries from filter() carry their generation, plain getFilter().filter() calls take current one
+            final int generation = constraint instanceof Query
+                    ? ((Query) constraint).generation : mGeneration.get();
+            if (generation != mGeneration.get()) return null; // newer query was requested meanwhile
+            String query = constraint == null ? "" : constraint.toString();
+
+            Source source = mSource;
+            Rows all = mAllRows;
+            if (source == null || all == null || all.source != source) return null;
+
+            Rows rows;
+            if (query.length() == 0) {
+                rows = all;
+            } else {
+                Rows last = mLastRows;
+                Rows base = last != null && last.source == source
+                        && isNarrowing(last.constraint, query) ? last : all;
+                rows = filterRows(base, query, generation);
+                if (rows == null || generation != mGeneration.get()) return null; // cancelled
+                mLastRows = rows;
+            }
+
+            FilterResults results = new FilterResults();
+            results.values = new Result(rows, generation);
+            results.count = rows.rows.length;
+            return results;
+        }
+
+        @Override
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            if (results == null || results.values == null) return; // cancelled
+            Result result = (Result) results.values;
+            if (result.generation != mGeneration.get()) return; // newer query or data is waiting
+            if (result.rows.source != mSource) return; // data has changed meanwhile
+
+            mRows = result.rows;
+            notifyDataSetChanged();
+        }
+
+        private Rows filterRows(Rows base, String query, int generation) {
+            Source source = base.source;
+            int sectionCount = base.sourceSections.length;
+            int[] sourceSections = new int[sectionCount];
+            int[][] sourceItems = new int[sectionCount][];
+            int[] matches = new int[0];
+            int resultCount = 0;
+
+            for (int i = 0; i < sectionCount; i++) {
+                if (generation != mGeneration.get()) return null; // cancel stale query
+
+                int section = base.sourceSections[i];
+                int[] candidates = base.sourceItems[i];
+                Object[] items = source.items[section];
+                if (matches.length < candidates.length) matches = new int[candidates.length];
+
+                int matchCount = 0;
+                for (int item : candidates) {
+                    @SuppressWarnings("unchecked") T value = (T) items[item];
+                    if (isItemMatching(value, query)) matches[matchCount++] = item;
+                }
+
+                if (matchCount > 0) { // empty sections are dropped
+                    int[] sectionMatches = new int[matchCount];
+                    System.arraycopy(matches, 0, sectionMatches, 0, matchCount);
+                    sourceSections[resultCount] = section;
+                    sourceItems[resultCount] = sectionMatches;
+                    resultCount++;
+                }
+            }
+            return new Rows(source, query, sourceSections, sourceItems, resultCount);
+        }
+    }
+
+    //-- class fields
+
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private SectionFilter mFilter;
+
+    // shared with worker thread
+    private volatile Source mSource;
+    private volatile Rows mAllRows;
+    private volatile Rows mLastRows;
+
+    /** Last query requested with filter(), accessed from UI thread only. */
+    private String mRequestedConstraint = "";
+
+    /** Currently displayed rows, accessed from UI thread only. */
+    private Rows mRows;
+
+    //-- abstract methods
+
+    /** Returns 'true' if given item matches given non-empty query. Called on a worker thread. */
+    protected abstract boolean isItemMatching(T item, String query);
+
+    public abstract View getSectionView(S section, View convertView, ViewGroup parent);
+    public abstract View getItemView(T item, View convertView, ViewGroup parent);
+
+    //-- public API methods
+
+    /**
+     * Sets data to be displayed. Items list has a list of section items for every section.
+     * Must be called from UI thread. Active query gets applied to the new data in background.
+     */
+    public void setData(List<S> sections, List<? extends List<T>> items) {
+        int sectionCount = sections.size();
+        Object[] sectionArray = sections.toArray();
+        Object[][] itemArrays = new Object[sectionCount][];
+        int[] sourceSections = new int[sectionCount];
+        int[][] sourceItems = new int[sectionCount][];
+        for (int i = 0; i < sectionCount; i++) {
+            itemArrays[i] = items.get(i).toArray();
+            sourceSections[i] = i;
+            int[] indexes = new int[itemArrays[i].length];
+            for (int j = 0; j < indexes.length; j++) indexes[j] = j;
+            sourceItems[i] = indexes;
+        }
+
+        Source source = new Source(sectionArray, itemArrays);
+        Rows all = new Rows(source, "", sourceSections, sourceItems, sectionCount);
+
+        int generation = mGeneration.incrementAndGet(); // cancel running filtering
+        mSource = source;
+        mAllRows = all;
+        mLastRows = null;
+
+        if (mRequestedConstraint.length() == 0) {
+            mRows = all;
+            notifyDataSetChanged();
+        } else {
+            getFilter().filter(new Query(mRequestedConstraint, generation));
+        }
+    }
+
+    /**
+     * Filters data in background, cancelling filtering of previous query. Prefer this method over
+     * {@code getFilter().filter()}, which cannot cancel a query being already filtered.
+     */
+    public void filter(CharSequence query) {
+        mRequestedConstraint = query == null ? "" : query.toString();
+        getFilter().filter(new Query(mRequestedConstraint, mGeneration.incrementAndGet()));
+    }
+
+    /** Returns currently applied query. */
+    public String getQuery() {
+        return mRows == null ? "" : mRows.constraint;
+    }
+
+    /**
+     * Returns 'true' if every item matching query also matches previous query, which is the case
+     * when query only adds characters to previous one. Override it for non-prefix matching rules.
+     */
+    protected boolean isNarrowing(String previousQuery, String query) {
+        return previousQuery.length() > 0 && query.startsWith(previousQuery);
+    }
+
+    //-- adapter methods
+
+    @Override
+    public Filter getFilter() {
+        if (mFilter == null) mFilter = new SectionFilter();
+        return mFilter;
+    }
+
+    @Override
+    public int getCount() {
+        return mRows == null ? 0 : mRows.rows.length;
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return mRows.rows[position];
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return 2;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return mRows.sectionPositions[mRows.rowSections[position]] == position
+                ? VIEW_TYPE_SECTION : VIEW_TYPE_ITEM;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public View getView(int position, View convertView, ViewGroup parent) {
+        Object row = mRows.rows[position];
+        return getItemViewType(position) == VIEW_TYPE_SECTION
+                ? getSectionView((S) row, convertView, parent)
+                : getItemView((T) row, convertView, parent);
+    }
+
+    @Override
+    public boolean isItemViewTypePinned(int viewType) {
+        return viewType == VIEW_TYPE_SECTION;
+    }
+
+    //-- section indexer methods
+
+    @Override
+    public Object[] getSections() {
+        return mRows == null ? new Object[0] : mRows.sections;
+    }
+
+    @Override
+    public int getPositionForSection(int section) {
+        int[] positions = mRows.sectionPositions;
+        if (positions.length == 0) return 0;
+        if (section >= positions.length) section = positions.length - 1;
+        return positions[section];
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        int[] rowSections = mRows.rowSections;
+        if (rowSections.length == 0) return 0;
+        if (position >= rowSections.length) position = rowSections.length - 1;
+        return rowSections[position];
+    }
+
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2013-2016 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.halfbit.pinnedsection;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+/**
+ * Container for a {@link PinnedSectionListView}, which hosts pinned view as a real sibling
+ * above the list. Pinned view lives in its own view (and render node) and is only moved by
+ * translation while the list scrolls, so list content and pinned view invalidate independently.
+ *
+ * <pre>
+ *  &lt;de.halfbit.pinnedsection.PinnedSectionLayout ... &gt;
+ *      &lt;de.halfbit.pinnedsection.PinnedSectionListView ... /&gt;
+ *  &lt;/de.halfbit.pinnedsection.PinnedSectionLayout&gt;
+ * </pre>
+ */
+public class PinnedSectionLayout extends FrameLayout {
+
+    //-- inner classes
+
+    /** Clipping host for pinned view. Stays at the top of list content, pinned view moves inside. */
+    class PinnedViewHost extends ViewGroup implements OnClickListener {
+
+        // fields used for handling touch events
+        private final int mTouchSlop;
+        private MotionEvent mDownEvent;
+        private boolean mForwardToList;
+
+        /** Currently drawn shadow height, used to skip needless invalidations. */
+        int mShadowClipHeight;
+
+        /** Set while host requests its own layout, other requests are not propagated. */
+        private boolean mHostLayoutRequested;
+
+        PinnedViewHost(Context context) {
+            super(context);
+            mTouchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
+            setOnClickListener(this);
+        }
+
+        View getPinnedView() {
+            return getChildCount() == 0 ? null : getChildAt(0);
+        }
+
+        /** Requests layout of the host, e.g. when its height has to follow pinned view. */
+        void requestHostLayout() {
+            mHostLayoutRequested = true;
+            requestLayout();
+            mHostLayoutRequested = false;
+        }
+
+        @Override
+        public void requestLayout() {
+            // list measures and lays out pinned view by itself, so layout requests coming from
+            // pinned view, e.g. after setText() in getView(), must not trigger layout of the list
+            if (mHostLayoutRequested || getParent() == null) super.requestLayout();
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            int width = MeasureSpec.getSize(widthMeasureSpec);
+            int height = 0;
+            View view = getPinnedView();
+            if (view != null) {
+                // pinned view is already measured by the list, we keep its size
+                height = view.getMeasuredHeight() + (mList == null ? 0 : mList.mShadowHeight);
+            }
+            setMeasuredDimension(width, height);
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            View view = getPinnedView();
+            if (view != null) {
+                view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+                    view.offsetTopAndBottom(mTranslateY); // layout resets offset, restore it
+                }
+            }
+        }
+
+        @Override
+        protected void dispatchDraw(Canvas canvas) {
+            super.dispatchDraw(canvas);
+            View view = getPinnedView();
+            if (view != null && mShadowClipHeight > 0 && mList.mShadowDrawable != null) {
+                canvas.save();
+                canvas.clipRect(0, 0, view.getWidth(), view.getHeight() + mShadowClipHeight);
+                mList.mShadowDrawable.setBounds(view.getLeft(), view.getBottom(),
+                        view.getRight(), view.getBottom() + mList.mShadowHeight);
+                mList.mShadowDrawable.draw(canvas);
+                canvas.restore();
+            }
+        }
+
+        @Override
+        public boolean dispatchTouchEvent(MotionEvent ev) {
+            final int action = ev.getAction();
+            View view = getPinnedView();
+
+            if (action == MotionEvent.ACTION_DOWN) {
+                // only pinned view area is touchable, shadow and space below go to the list
+                if (view == null || getVisibility() != VISIBLE
+                        || ev.getY() >= view.getBottom() + getTranslationDelta()) return false;
+                mForwardToList = false;
+                clearDownEvent();
+                mDownEvent = MotionEvent.obtain(ev);
+            }
+
+            if (mForwardToList) { // list is scrolling, it receives the rest of the sequence
+                forwardToList(ev);
+
+            } else if (action == MotionEvent.ACTION_MOVE && mDownEvent != null
+                    && Math.abs(ev.getY() - mDownEvent.getY()) > mTouchSlop) {
+
+                // cancel sequence on pinned view
+                MotionEvent event = MotionEvent.obtain(ev);
+                event.setAction(MotionEvent.ACTION_CANCEL);
+                super.dispatchTouchEvent(event);
+                event.recycle();
+
+                // provide correct sequence to the list for further handling
+                mForwardToList = true;
+                forwardToList(mDownEvent);
+                forwardToList(ev);
+
+            } else {
+                super.dispatchTouchEvent(ev);
+            }
+
+            if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+                mForwardToList = false;
+                clearDownEvent();
+            }
+            return true;
+        }
+
+        @Override
+        public void onClick(View v) {
+            if (mList != null) mList.performPinnedItemClick();
+        }
+
+        private int getTranslationDelta() {
+            // pre-honeycomb offset is already applied to view bounds
+            return Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB ? 0 : mTranslateY;
+        }
+
+        private void forwardToList(MotionEvent ev) {
+            if (mList == null) return;
+            MotionEvent event = MotionEvent.obtain(ev);
+            event.offsetLocation(getLeft() - mList.getLeft(), getTop() - mList.getTop());
+            mList.dispatchTouchEvent(event);
+            event.recycle();
+        }
+
+        private void clearDownEvent() {
+            if (mDownEvent != null) {
+                mDownEvent.recycle();
+                mDownEvent = null;
+            }
+        }
+    }
+
+    //-- class fields
+
+    /** Hosted list, can be null. */
+    PinnedSectionListView mList;
+
+    /** Host of pinned view, always the topmost child. */
+    final PinnedViewHost mPinnedViewHost;
+
+    /** Currently applied pinned view Y-translation. */
+    int mTranslateY;
+
+    //-- constructors
+
+    public PinnedSectionLayout(Context context) {
+        super(context);
+        mPinnedViewHost = new PinnedViewHost(context);
+        initView();
+    }
+
+    public PinnedSectionLayout(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mPinnedViewHost = new PinnedViewHost(context);
+        initView();
+    }
+
+    public PinnedSectionLayout(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        mPinnedViewHost = new PinnedViewHost(context);
+        initView();
+    }
+
+    private void initView() {
+        mPinnedViewHost.setVisibility(INVISIBLE);
+        super.addView(mPinnedViewHost, -1,
+                new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT));
+    }
+
+    //-- public API methods
+
+    /** Returns hosted list or null, if there is no list added yet. */
+    public PinnedSectionListView getListView() {
+        return mList;
+    }
+
+    //-- callbacks from the list
+
+    /** Called by the list, when pinned view is created, rebound or destroyed (view is null). */
+    void onPinnedViewChanged(View pinnedView) {
+        PinnedViewHost host = mPinnedViewHost;
+        if (pinnedView == null) {
+            // keep view attached for being recycled, INVISIBLE does not request layout
+            host.setVisibility(INVISIBLE);
+            return;
+        }
+
+        View current = host.getPinnedView();
+        if (current != pinnedView) {
+            host.removeAllViews();
+            host.addView(pinnedView);
+        }
+        if (host.getHeight() != pinnedView.getMeasuredHeight() + mList.mShadowHeight) {
+            host.requestHostLayout();
+        }
+
+        mTranslateY = 0;
+        applyTranslation(pinnedView, 0);
+        host.setVisibility(VISIBLE);
+    }
+
+    /** Called by the list on every scroll, while there is a pinned view. */
+    void onPinnedViewScrolled(int translateY, int sectionsDistanceY) {
+        PinnedViewHost host = mPinnedViewHost;
+        View view = host.getPinnedView();
+        if (view == null) return;
+
+        if (translateY != mTranslateY) {
+            applyTranslation(view, translateY - mTranslateY);
+            mTranslateY = translateY;
+        }
+
+        // shadow is drawn by the host itself, redraw it only when its visible part changes
+        int shadowClipHeight = mList.mShadowDrawable == null || sectionsDistanceY <= 0
+                ? 0 : Math.min(mList.mShadowHeight, sectionsDistanceY);
+        if (shadowClipHeight != host.mShadowClipHeight) {
+            host.mShadowClipHeight = shadowClipHeight;
+            host.invalidate();
+        }
+    }
+
+    /** Called by the list, when shadow visibility has changed. */
+    void onPinnedShadowChanged() {
+        mPinnedViewHost.requestHostLayout(); // host height includes shadow height
+        if (mList != null) mList.recreatePinnedShadow();
+    }
+
+    @SuppressLint("NewApi")
+    private void applyTranslation(View view, int deltaY) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            view.setTranslationY(mTranslateY + deltaY); // render property, no redraw of the view
+        } else {
+            view.offsetTopAndBottom(deltaY);
+            mPinnedViewHost.invalidate();
+        }
+    }
+
+    //-- children management methods
+
+    @Override
+    public void addView(View child, int index, ViewGroup.LayoutParams params) {
+        super.addView(child, index, params);
+        if (child instanceof PinnedSectionListView) {
+            if (mList != null) {
+                throw new IllegalStateException("PinnedSectionLayout can host only one PinnedSectionListView");
+            }
+            mList = (PinnedSectionListView) child;
+            mList.setPinnedSectionLayout(this);
+        }
+        if (child != mPinnedViewHost) {
+            mPinnedViewHost.bringToFront(); // keep pinned view above all other children
+        }
+    }
+
+    @Override
+    public void removeView(View view) {
+        super.removeView(view);
+        releaseRemovedList();
+    }
+
+    @Override
+    public void removeViewInLayout(View view) {
+        super.removeViewInLayout(view);
+        releaseRemovedList();
+    }
+
+    @Override
+    public void removeViewAt(int index) {
+        super.removeViewAt(index);
+        releaseRemovedList();
+    }
+
+    @Override
+    public void removeViews(int start, int count) {
+        super.removeViews(start, count);
+        releaseRemovedList();
+    }
+
+    @Override
+    public void removeViewsInLayout(int start, int count) {
+        super.removeViewsInLayout(start, count);
+        releaseRemovedList();
+    }
+
+    @Override
+    public void removeAllViewsInLayout() {
+        super.removeAllViewsInLayout(); // removeAllViews() ends up here too
+        releaseRemovedList();
+    }
+
+    /** Releases the list, if it is not a child of this container anymore. */
+    private void releaseRemovedList() {
+        if (mList != null && mList.getParent() != this) {
+            // detach pinned view first, the list will draw it by itself
+            mPinnedViewHost.removeAllViews();
+            mPinnedViewHost.setVisibility(INVISIBLE);
+            mList.setPinnedSectionLayout(null);
+            mList = null;
+        }
+    }
+
+    //-- layout methods
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        if (mList != null) {
+            int width = mList.getMeasuredWidth() - mList.getPaddingLeft() - mList.getPaddingRight();
+            mPinnedViewHost.measure(MeasureSpec.makeMeasureSpec(Math.max(width, 0), MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+        if (mList != null) {
+            // host sticks to the top of list content
+            int hostLeft = mList.getLeft() + mList.getPaddingLeft();
+            int hostTop = mList.getTop() + mList.getPaddingTop();
+            mPinnedViewHost.layout(hostLeft, hostTop,
+                    hostLeft + mPinnedViewHost.getMeasuredWidth(),
+                    hostTop + mPinnedViewHost.getMeasuredHeight());
+        }
+    }
+
+}
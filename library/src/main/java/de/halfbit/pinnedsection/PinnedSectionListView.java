@@ -24,8 +24,13 @@ import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.drawable.GradientDrawable;
 import android.graphics.drawable.GradientDrawable.Orientation;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcelable;
+import android.os.Process;
 import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.SoundEffectConstants;
 import android.view.View;
@@ -38,6 +43,8 @@ import android.widget.ListAdapter;
 import android.widget.ListView;
 import android.widget.SectionIndexer;
 
+import java.util.ArrayList;
+
 /**
  * ListView, which is capable to pin section views at its top while the rest is still scrolled.
  */
@@ -51,9 +58,30 @@ public class PinnedSectionListView extends ListView {
 		boolean isItemViewTypePinned(int viewType);
 	}
 
+	/**
+	 * List adapter with nested pinned sections, e.g. category and subcategory. Pinned views of all
+	 * levels are stacked at the top of the list, upper levels above lower ones.
+	 */
+	public interface PinnedSectionLevelAdapter extends PinnedSectionListAdapter {
+		/** Returns number of nesting levels of pinned sections. It is read once, when adapter is set. */
+		int getPinnedLevelCount();
+		/** Returns nesting level of given pinned view type, 0 for top level. */
+		int getPinnedViewTypeLevel(int viewType);
+	}
+
+	/** Listener notified when the list scrolls close to a section, e.g. for prefetching its data. */
+	public interface OnSectionLookaheadListener {
+		/**
+		 * Called once the list is scrolled within lookahead distance of a section. Section position
+		 * is a list position, scrollingDown is 'true' for next section and 'false' for previous one.
+		 */
+		void onSectionLookahead(PinnedSectionListView view, int sectionPosition, boolean scrollingDown);
+	}
+
 	/** Wrapper class for pinned section view and its position in the list. */
 	static class PinnedSection {
 		public View view;
+		public int viewType;
 		public int position;
 		public long id;
 	}
@@ -65,12 +93,14 @@ public class PinnedSectionListView extends ListView {
     private final PointF mTouchPoint = new PointF();
     private int mTouchSlop;
     private View mTouchTarget;
+    private PinnedSection mTouchSection;
+    private int mTouchLevel = -1;
     private MotionEvent mDownEvent;
 
     // fields used for drawing shadow under a pinned section
-    private GradientDrawable mShadowDrawable;
-    private int mSectionsDistanceY;
-    private int mShadowHeight;
+    GradientDrawable mShadowDrawable;
+    int mSectionsDistanceY;
+    int mShadowHeight;
 
     /** Delegating listener, can be null. */
     OnScrollListener mDelegateOnScrollListener;
@@ -81,9 +111,44 @@ public class PinnedSectionListView extends ListView {
     /** shadow instance with a pinned view, can be null. */
     PinnedSection mPinnedSection;
 
+    /** Set when pinned view survived a data change and can be moved to a new position of same id. */
+    boolean mPinnedSectionKept;
+
     /** Pinned view Y-translation. We use it to stick pinned view to the next section. */
     int mTranslateY;
 
+    /** Container hosting pinned view above the list, can be null. */
+    PinnedSectionLayout mPinnedSectionLayout;
+
+    // fields used for section lookahead
+    OnSectionLookaheadListener mSectionLookaheadListener;
+    int mLookaheadDistance;
+    int mLookaheadFirstVisible;
+    int mLookaheadTop;
+    int mLookaheadSection = -2;
+    int mLookaheadNext;
+    int mLookaheadScanEnd;
+    int mLookaheadPrevious;
+    int mLookaheadNotified = -1;
+
+    // result of the last backward scan for a section, used to avoid rescanning same items
+    int mScannedFromPosition = -1;
+    int mScannedSectionPosition;
+
+    // fields used for stacked pinned sections of nested levels
+    /** Index of sections per level, null if adapter has a single level. */
+    SectionLevelIndex mLevelIndex;
+    PinnedSection[] mLevelSections;
+    PinnedSection[] mLevelRecycleSections;
+    /** Top of every pinned level view in list coordinates, including its push-off translation. */
+    int[] mLevelTops;
+    int mPinnedLevelCount;
+
+    /** Views inflated in background, grouped by view type. Accessed from UI thread only. */
+    final SparseArray<ArrayList<View>> mPreinflatedViews = new SparseArray<ArrayList<View>>();
+    /** Incremented when adapter is replaced, views inflated for previous adapter are dropped. */
+    int mPreinflateGeneration;
+
 	/** Scroll listener which does the magic */
 	private final OnScrollListener mOnScrollListener = new OnScrollListener() {
 
@@ -104,10 +169,20 @@ public class PinnedSectionListView extends ListView {
             ListAdapter adapter = getAdapter();
             if (adapter == null || visibleItemCount == 0) return; // nothing to do
 
+            if (mLevelIndex != null) { // nested levels are stacked
+                int sectionPosition = ensureLevelShadows(firstVisibleItem, visibleItemCount);
+                if (mSectionLookaheadListener != null) {
+                    dispatchSectionLookahead(firstVisibleItem, visibleItemCount, sectionPosition);
+                }
+                return;
+            }
+
             final boolean isFirstVisibleItemSection =
                     isItemViewTypePinned(adapter, adapter.getItemViewType(firstVisibleItem));
 
+            final int sectionPosition;
             if (isFirstVisibleItemSection) {
+                sectionPosition = firstVisibleItem;
                 View sectionView = getChildAt(0);
                 if (sectionView.getTop() == getPaddingTop()) { // view sticks to the top, no need for pinned shadow
                     destroyPinnedShadow();
@@ -116,13 +191,17 @@ public class PinnedSectionListView extends ListView {
                 }
 
             } else { // section is not at the first visible position
-                int sectionPosition = findCurrentSectionPosition(firstVisibleItem);
+                sectionPosition = findCurrentSectionPosition(firstVisibleItem);
                 if (sectionPosition > -1) { // we have section position
                     ensureShadowForPosition(sectionPosition, firstVisibleItem, visibleItemCount);
                 } else { // there is no section for the first visible item, destroy shadow
                     destroyPinnedShadow();
                 }
             }
+
+            if (mSectionLookaheadListener != null) {
+                dispatchSectionLookahead(firstVisibleItem, visibleItemCount, sectionPosition);
+            }
 		};
 
 	};
@@ -130,9 +209,17 @@ public class PinnedSectionListView extends ListView {
 	/** Default change observer. */
     private final DataSetObserver mDataSetObserver = new DataSetObserver() {
         @Override public void onChanged() {
-            recreatePinnedShadow();
+            resetSectionLookahead();
+            if (isPinnedSectionUnchanged()) {
+                // section was expanded or collapsed, keep pinned view until next layout moves it
+                mScannedFromPosition = -1;
+                mPinnedSectionKept = true;
+            } else {
+                recreatePinnedShadow();
+            }
         };
         @Override public void onInvalidated() {
+            resetSectionLookahead();
             recreatePinnedShadow();
         }
     };
@@ -159,12 +246,79 @@ public class PinnedSectionListView extends ListView {
 
     public void setShadowVisible(boolean visible) {
         initShadow(visible);
-        if (mPinnedSection != null) {
+        if (mPinnedLevelCount > 0) {
+            invalidate();
+        } else if (mPinnedSectionLayout != null) {
+            mPinnedSectionLayout.onPinnedShadowChanged();
+        } else if (mPinnedSection != null) {
             View v = mPinnedSection.view;
             invalidate(v.getLeft(), v.getTop(), v.getRight(), v.getBottom() + mShadowHeight);
         }
     }
 
+    /**
+     * Sets listener to be notified when the list is scrolled within given distance, in items,
+     * of the next or previous section. A section is reported once per approach, it is reported
+     * again only after another section has been reported in between, e.g. when scrolling back.
+     */
+    public void setOnSectionLookaheadListener(OnSectionLookaheadListener listener, int distance) {
+        mSectionLookaheadListener = listener;
+        mLookaheadDistance = distance;
+        resetSectionLookahead();
+    }
+
+    /**
+     * Inflates given number of views for given pinned view type in background thread. Call it
+     * right before or after the adapter is set, views are dropped when the adapter gets replaced
+     * by another one. Inflated views are used for creating pinned view and adapter should
+     * use them for list items too, by calling {@link #takePreinflatedView(int)} in its
+     * {@code getView()} method when {@code convertView} is null.
+     *
+     * <p>Layout must not contain views, which require UI thread during inflation. If inflation
+     * fails, remaining views are inflated by adapter on UI thread as usual.</p>
+     */
+    public void preinflatePinnedViews(final int viewType, final int layoutResId, final int count) {
+        // layout inflater is not thread safe, worker uses its own instance
+        final LayoutInflater inflater = LayoutInflater.from(getContext()).cloneInContext(getContext());
+        final Handler handler = new Handler(Looper.getMainLooper());
+        final int generation = mPreinflateGeneration;
+        new Thread("PinnedSectionPreinflater") {
+            @Override public void run() {
+                // do not compete with UI thread during the start it is supposed to speed up
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                for (int i = 0; i < count; i++) {
+                    final View view;
+                    try {
+                        view = inflater.inflate(layoutResId, PinnedSectionListView.this, false);
+                    } catch (RuntimeException e) {
+                        return; // cannot be inflated off UI thread, adapter will inflate it
+                    }
+                    handler.post(new Runnable() {
+                        @Override public void run() { // hand every view over as soon as it is ready
+                            if (generation == mPreinflateGeneration) addPreinflatedView(viewType, view);
+                        }
+                    });
+                }
+            }
+        }.start();
+    }
+
+    /** Returns view of given type inflated in background or null, if there is no such view left. */
+    public View takePreinflatedView(int viewType) {
+        ArrayList<View> views = mPreinflatedViews.get(viewType);
+        if (views == null || views.isEmpty()) return null;
+        return views.remove(views.size() - 1);
+    }
+
+    void addPreinflatedView(int viewType, View view) {
+        ArrayList<View> views = mPreinflatedViews.get(viewType);
+        if (views == null) {
+            views = new ArrayList<View>();
+            mPreinflatedViews.put(viewType, views);
+        }
+        views.add(view);
+    }
+
     //-- pinned section drawing methods
 
     public void initShadow(boolean visible) {
@@ -186,13 +340,28 @@ public class PinnedSectionListView extends ListView {
 	void createPinnedShadow(int position) {
 
 		// try to recycle shadow
-		PinnedSection pinnedShadow = mRecycleSection;
+		PinnedSection pinnedShadow = bindPinnedSection(mRecycleSection, position);
 		mRecycleSection = null;
+		mTranslateY = 0;
+
+		// store pinned shadow
+		mPinnedSection = pinnedShadow;
+
+		if (mPinnedSectionLayout != null) {
+		    mPinnedSectionLayout.onPinnedViewChanged(pinnedShadow.view);
+		}
+	}
+
+	/** Binds, measures and lays out a pinned view for given position, reusing given shadow, if not null. */
+	PinnedSection bindPinnedSection(PinnedSection pinnedShadow, int position) {
 
 		// create new shadow, if needed
 		if (pinnedShadow == null) pinnedShadow = new PinnedSection();
-		// request new view using recycled view, if such
-		View pinnedView = getAdapter().getView(position, pinnedShadow.view, PinnedSectionListView.this);
+		// request new view using recycled view of same type or view inflated in background, if such
+		int viewType = getAdapter().getItemViewType(position);
+		View convertView = pinnedShadow.view != null && pinnedShadow.viewType == viewType
+		        ? pinnedShadow.view : takePreinflatedView(viewType);
+		View pinnedView = getAdapter().getView(position, convertView, PinnedSectionListView.this);
 
 		// read layout parameters
 		ViewGroup.LayoutParams layoutParams = pinnedView.getLayoutParams();
@@ -214,15 +383,13 @@ public class PinnedSectionListView extends ListView {
 		int hs = MeasureSpec.makeMeasureSpec(heightSize, heightMode);
 		pinnedView.measure(ws, hs);
 		pinnedView.layout(0, 0, pinnedView.getMeasuredWidth(), pinnedView.getMeasuredHeight());
-		mTranslateY = 0;
 
 		// initialize pinned shadow
 		pinnedShadow.view = pinnedView;
+		pinnedShadow.viewType = viewType;
 		pinnedShadow.position = position;
 		pinnedShadow.id = getAdapter().getItemId(position);
-
-		// store pinned shadow
-		mPinnedSection = pinnedShadow;
+		return pinnedShadow;
 	}
 
 	/** Destroy shadow wrapper for currently pinned view */
@@ -231,6 +398,10 @@ public class PinnedSectionListView extends ListView {
 	        // keep shadow for being recycled later
 	        mRecycleSection = mPinnedSection;
 	        mPinnedSection = null;
+
+	        if (mPinnedSectionLayout != null) {
+	            mPinnedSectionLayout.onPinnedViewChanged(null);
+	        }
 	    }
 	}
 
@@ -243,15 +414,20 @@ public class PinnedSectionListView extends ListView {
 
         if (mPinnedSection != null
                 && mPinnedSection.position != sectionPosition) { // invalidate shadow, if required
-            destroyPinnedShadow();
+            if (mPinnedSectionKept && getAdapter().getItemId(sectionPosition) == mPinnedSection.id) {
+                mPinnedSection.position = sectionPosition; // same view moved by a data change
+            } else {
+                destroyPinnedShadow();
+            }
         }
+        mPinnedSectionKept = false;
 
         if (mPinnedSection == null) { // create shadow, if empty
             createPinnedShadow(sectionPosition);
         }
 
-        // align shadow according to next section position, if needed
-        int nextPosition = sectionPosition + 1;
+        // align shadow according to next section position, if needed, only visible items can push it
+        int nextPosition = Math.max(sectionPosition + 1, firstVisibleItem);
         if (nextPosition < getCount()) {
             int nextSectionPosition = findFirstVisibleSectionPosition(nextPosition,
                     visibleItemCount - (nextPosition - firstVisibleItem));
@@ -273,8 +449,88 @@ public class PinnedSectionListView extends ListView {
             }
         }
 
+        if (mPinnedSectionLayout != null) {
+            mPinnedSectionLayout.onPinnedViewScrolled(mTranslateY, mSectionsDistanceY);
+        }
     }
 
+	/**
+	 * Makes sure every level has an actual pinned shadow and stacks them. Returns position of
+	 * top level section of the first visible item, pinned or shown by the list, or -1.
+	 */
+	int ensureLevelShadows(int firstVisibleItem, int visibleItemCount) {
+	    ListAdapter adapter = getAdapter();
+	    SectionLevelIndex index = mLevelIndex;
+	    index.ensure(getLevelAdapter(adapter), getIndexedAdapter(adapter) == adapter ? 0 : getHeaderViewsCount());
+
+	    final int levelCount = index.getLevelCount();
+	    int slotTop = getPaddingTop();
+	    int parentPosition = -1;
+	    int topSectionPosition = -1;
+	    int pinnedLevelCount = 0;
+	    mSectionsDistanceY = Integer.MAX_VALUE;
+
+	    for (int level = 0; level < levelCount; level++) {
+	        // section of this level for the item under the slot of this level
+	        int referencePosition = findPositionAtY(slotTop, firstVisibleItem, visibleItemCount);
+	        if (referencePosition == -1) break; // stack covers the whole list
+	        int position = index.findSectionAtOrBefore(level, referencePosition);
+	        if (position <= parentPosition) break; // there is no section of this level in the parent
+	        if (level == 0) topSectionPosition = position;
+	        if (position >= firstVisibleItem
+	                && getChildAt(position - firstVisibleItem).getTop() >= slotTop) break; // list shows it
+
+	        PinnedSection section = mLevelSections[level];
+	        if (section != null && section.position != position) {
+	            destroyLevelShadow(level);
+	            section = null;
+	        }
+	        if (section == null) {
+	            section = bindPinnedSection(mLevelRecycleSections[level], position);
+	            mLevelRecycleSections[level] = null;
+	            mLevelSections[level] = section;
+	        }
+
+	        // next section of this or an upper level pushes this level off
+	        int height = section.view.getHeight();
+	        int translateY = 0;
+	        int nextPosition = index.findNextSectionUpToLevel(level, position);
+	        if (nextPosition != -1 && nextPosition < firstVisibleItem + visibleItemCount) {
+	            mSectionsDistanceY = getChildAt(nextPosition - firstVisibleItem).getTop() - (slotTop + height);
+	            if (mSectionsDistanceY < 0) translateY = mSectionsDistanceY;
+	        } else {
+	            mSectionsDistanceY = Integer.MAX_VALUE;
+	        }
+
+	        mLevelTops[level] = slotTop + translateY;
+	        slotTop += height + translateY;
+	        parentPosition = position;
+	        pinnedLevelCount++;
+	    }
+
+	    for (int level = pinnedLevelCount; level < levelCount; level++) {
+	        destroyLevelShadow(level);
+	    }
+	    mPinnedLevelCount = pinnedLevelCount;
+	    return topSectionPosition;
+	}
+
+	/** Destroy shadow wrapper of given level, keeping it for being recycled later. */
+	void destroyLevelShadow(int level) {
+	    if (mLevelSections[level] != null) {
+	        mLevelRecycleSections[level] = mLevelSections[level];
+	        mLevelSections[level] = null;
+	    }
+	}
+
+	/** Returns position of the first visible item having its bottom below given Y, or -1. */
+	int findPositionAtY(int y, int firstVisibleItem, int visibleItemCount) {
+	    for (int childIndex = 0; childIndex < visibleItemCount; childIndex++) {
+	        if (getChildAt(childIndex).getBottom() > y) return firstVisibleItem + childIndex;
+	    }
+	    return -1;
+	}
+
 	int findFirstVisibleSectionPosition(int firstVisibleItem, int visibleItemCount) {
 		ListAdapter adapter = getAdapter();
 
@@ -298,28 +554,152 @@ public class PinnedSectionListView extends ListView {
 
 		if (fromPosition >= adapter.getCount()) return -1; // dataset has changed, no candidate
 
-		if (adapter instanceof SectionIndexer) {
+		// section indexer knows positions of wrapped adapter only
+		ListAdapter indexedAdapter = getIndexedAdapter(adapter);
+		int headersCount = indexedAdapter == adapter ? 0 : getHeaderViewsCount();
+
+		int indexedPosition = fromPosition - headersCount;
+		if (indexedAdapter instanceof SectionIndexer
+				&& indexedPosition >= 0 && indexedPosition < indexedAdapter.getCount()) {
 			// try fast way by asking section indexer
-			SectionIndexer indexer = (SectionIndexer) adapter;
-			int sectionPosition = indexer.getSectionForPosition(fromPosition);
-			int itemPosition = indexer.getPositionForSection(sectionPosition);
+			SectionIndexer indexer = (SectionIndexer) indexedAdapter;
+			int sectionPosition = indexer.getSectionForPosition(indexedPosition);
+			int itemPosition = indexer.getPositionForSection(sectionPosition) + headersCount;
 			int typeView = adapter.getItemViewType(itemPosition);
 			if (isItemViewTypePinned(adapter, typeView)) {
 				return itemPosition;
 			} // else, no luck
 		}
 
+		// range (mScannedSectionPosition, mScannedFromPosition] is known to have no sections
+		int scanEnd = -1;
+		if (mScannedFromPosition != -1 && fromPosition > mScannedSectionPosition) {
+			if (fromPosition <= mScannedFromPosition) return mScannedSectionPosition;
+			scanEnd = mScannedFromPosition;
+		}
+
 		// try slow way by looking through to the next section item above
-		for (int position=fromPosition; position>=0; position--) {
+		int sectionPosition = scanEnd == -1 ? -1 : mScannedSectionPosition;
+		for (int position=fromPosition; position>scanEnd; position--) {
 			int viewType = adapter.getItemViewType(position);
-			if (isItemViewTypePinned(adapter, viewType)) return position;
+			if (isItemViewTypePinned(adapter, viewType)) {
+				sectionPosition = position;
+				break;
+			}
 		}
-		return -1; // no candidate found
+
+		// remember scanned range, so that scrolling only scans newly shown items
+		mScannedFromPosition = fromPosition;
+		mScannedSectionPosition = sectionPosition;
+		return sectionPosition;
+	}
+
+	void resetSectionLookahead() {
+	    mLookaheadSection = -2;
+	    mLookaheadNotified = -1;
+	}
+
+	/** Notifies lookahead listener, when next or previous section is close enough. */
+	void dispatchSectionLookahead(int firstVisibleItem, int visibleItemCount, int sectionPosition) {
+	    final int top = getChildAt(0).getTop();
+	    if (firstVisibleItem == mLookaheadFirstVisible && top == mLookaheadTop) return; // not scrolled
+	    final boolean scrollingDown = firstVisibleItem > mLookaheadFirstVisible
+	            || (firstVisibleItem == mLookaheadFirstVisible && top < mLookaheadTop);
+	    mLookaheadFirstVisible = firstVisibleItem;
+	    mLookaheadTop = top;
+
+	    if (sectionPosition != mLookaheadSection) { // current section changed, forget its neighbours
+	        mLookaheadSection = sectionPosition;
+	        mLookaheadNext = mLevelIndex != null // top level sections are indexed already
+	                ? mLevelIndex.findNextSectionUpToLevel(0, sectionPosition)
+	                : findNextSectionByIndexer(sectionPosition);
+	        mLookaheadScanEnd = Math.max(sectionPosition + 1, firstVisibleItem);
+	        mLookaheadPrevious = -2;
+	    }
+
+	    if (scrollingDown) {
+	        int limit = Math.min(firstVisibleItem + visibleItemCount - 1 + mLookaheadDistance, getCount() - 1);
+	        if (mLookaheadNext == -2) {
+	            // no indexer, continue scanning where we stopped last time, each position is checked once per section
+	            ListAdapter adapter = getAdapter();
+	            for (int position = mLookaheadScanEnd; position <= limit; position++) {
+	                if (isItemViewTypePinned(adapter, adapter.getItemViewType(position))) {
+	                    mLookaheadNext = position;
+	                    break;
+	                }
+	            }
+	            mLookaheadScanEnd = Math.max(mLookaheadScanEnd, limit + 1);
+	        }
+	        if (mLookaheadNext >= 0 && mLookaheadNext <= limit) {
+	            notifySectionLookahead(mLookaheadNext, true);
+	        }
+
+	    } else if (sectionPosition > 0 && firstVisibleItem - mLookaheadDistance <= sectionPosition) {
+	        if (mLookaheadPrevious == -2) {
+	            mLookaheadPrevious = mLevelIndex != null
+	                    ? mLevelIndex.findSectionAtOrBefore(0, sectionPosition - 1)
+	                    : findCurrentSectionPosition(sectionPosition - 1);
+	        }
+	        if (mLookaheadPrevious != -1) {
+	            notifySectionLookahead(mLookaheadPrevious, false);
+	        }
+	    }
+	}
+
+	/**
+	 * Returns position of the section following given one using section indexer, -1 if there is
+	 * no next section or -2, if adapter is not a section indexer and the list has to scan.
+	 */
+	int findNextSectionByIndexer(int sectionPosition) {
+	    ListAdapter adapter = getAdapter();
+	    ListAdapter indexedAdapter = getIndexedAdapter(adapter);
+	    if (!(indexedAdapter instanceof SectionIndexer)) return -2;
+
+	    int headersCount = indexedAdapter == adapter ? 0 : getHeaderViewsCount();
+	    int indexedCount = indexedAdapter.getCount();
+	    int indexedPosition = sectionPosition - headersCount;
+	    if (indexedPosition >= indexedCount) return -1;
+
+	    SectionIndexer indexer = (SectionIndexer) indexedAdapter;
+	    int nextSection = indexedPosition < 0 ? 0 : indexer.getSectionForPosition(indexedPosition) + 1;
+	    int nextPosition = indexer.getPositionForSection(nextSection);
+	    if (nextPosition <= indexedPosition || nextPosition >= indexedCount) return -1; // indexers clamp last section
+
+	    nextPosition += headersCount;
+	    return isItemViewTypePinned(adapter, adapter.getItemViewType(nextPosition)) ? nextPosition : -2;
+	}
+
+	private void notifySectionLookahead(int sectionPosition, boolean scrollingDown) {
+	    if (sectionPosition == mLookaheadNotified) return; // already reported
+	    mLookaheadNotified = sectionPosition;
+	    mSectionLookaheadListener.onSectionLookahead(this, sectionPosition, scrollingDown);
+	}
+
+	/** Switches pinned view rendering between this list and given container. */
+	void setPinnedSectionLayout(PinnedSectionLayout layout) {
+	    if (mPinnedSectionLayout == layout) return;
+	    mPinnedSectionLayout = layout;
+	    if (layout != null) clearTouchTarget();
+	    recreatePinnedShadow();
+	    invalidate();
 	}
 
 	void recreatePinnedShadow() {
+	    mScannedFromPosition = -1; // adapter might have changed
+	    mPinnedSectionKept = false;
 	    destroyPinnedShadow();
         ListAdapter adapter = getAdapter();
+
+        if (mLevelIndex != null) {
+            mLevelIndex.invalidate();
+            for (int level = 0; level < mLevelSections.length; level++) destroyLevelShadow(level);
+            mPinnedLevelCount = 0;
+            if (adapter != null && adapter.getCount() > 0 && getChildCount() > 0) {
+                ensureLevelShadows(getFirstVisiblePosition(), getChildCount());
+            }
+            return;
+        }
+
         if (adapter != null && adapter.getCount() > 0) {
             int firstVisiblePosition = getFirstVisiblePosition();
             int sectionPosition = findCurrentSectionPosition(firstVisiblePosition);
@@ -366,17 +746,80 @@ public class PinnedSectionListView extends ListView {
 		if (adapter != null) adapter.registerDataSetObserver(mDataSetObserver);
 
 		// destroy pinned shadow, if new adapter is not same as old one
-		if (oldAdapter != adapter) destroyPinnedShadow();
+		if (oldAdapter != adapter) {
+		    destroyPinnedShadow();
+		    resetSectionLookahead();
+		    mScannedFromPosition = -1;
+		    initLevels(adapter);
+		    if (oldAdapter != null) { // view types of another adapter can mean other layouts
+		        mPreinflatedViews.clear();
+		        mPreinflateGeneration++;
+		    }
+		}
 
 		super.setAdapter(adapter);
 	}
 
+	// headers and footers shift adapter positions without notifying our observer
+
+	@Override
+	public void addHeaderView(View v, Object data, boolean isSelectable) {
+	    super.addHeaderView(v, data, isSelectable);
+	    onHeadersChanged();
+	}
+
+	@Override
+	public boolean removeHeaderView(View v) {
+	    boolean removed = super.removeHeaderView(v);
+	    if (removed) onHeadersChanged();
+	    return removed;
+	}
+
+	@Override
+	public void addFooterView(View v, Object data, boolean isSelectable) {
+	    super.addFooterView(v, data, isSelectable);
+	    onHeadersChanged();
+	}
+
+	@Override
+	public boolean removeFooterView(View v) {
+	    boolean removed = super.removeFooterView(v);
+	    if (removed) onHeadersChanged();
+	    return removed;
+	}
+
+	private void onHeadersChanged() {
+	    mScannedFromPosition = -1;
+	    if (getAdapter() == null) return;
+	    resetSectionLookahead();
+	    recreatePinnedShadow();
+	}
+
+	/** Prepares stacked pinning, if given adapter has nested levels. */
+	private void initLevels(ListAdapter adapter) {
+	    PinnedSectionLevelAdapter levelAdapter = getLevelAdapter(adapter);
+	    int levelCount = levelAdapter == null ? 1 : levelAdapter.getPinnedLevelCount();
+	    mPinnedLevelCount = 0;
+	    if (levelCount < 2) {
+	        mLevelIndex = null;
+	        mLevelSections = null;
+	        mLevelRecycleSections = null;
+	        mLevelTops = null;
+	    } else {
+	        mLevelIndex = new SectionLevelIndex(levelCount);
+	        mLevelSections = new PinnedSection[levelCount];
+	        mLevelRecycleSections = new PinnedSection[levelCount];
+	        mLevelTops = new int[levelCount];
+	    }
+	}
+
 	@Override
 	protected void onLayout(boolean changed, int l, int t, int r, int b) {
 	    super.onLayout(changed, l, t, r, b);
-        if (mPinnedSection != null) {
+        PinnedSection pinnedSection = mPinnedLevelCount > 0 ? mLevelSections[0] : mPinnedSection;
+        if (pinnedSection != null) {
             int parentWidth = r - l - getPaddingLeft() - getPaddingRight();
-            int shadowWidth = mPinnedSection.view.getWidth();
+            int shadowWidth = pinnedSection.view.getWidth();
             if (parentWidth != shadowWidth) {
                 recreatePinnedShadow();
             }
@@ -387,7 +830,7 @@ public class PinnedSectionListView extends ListView {
 	protected void dispatchDraw(Canvas canvas) {
 		super.dispatchDraw(canvas);
 
-		if (mPinnedSection != null) {
+		if (mPinnedSection != null && mPinnedSectionLayout == null) { // container draws it otherwise
 
 			// prepare variables
 			int pLeft = getListPaddingLeft();
@@ -414,6 +857,37 @@ public class PinnedSectionListView extends ListView {
 
 			canvas.restore();
 		}
+
+		if (mPinnedLevelCount > 0) {
+		    drawLevelShadows(canvas);
+		}
+	}
+
+	/** Draws pinned views of all levels, upper levels cover lower ones while pushed off. */
+	private void drawLevelShadows(Canvas canvas) {
+	    int pLeft = getListPaddingLeft();
+	    int pTop = getListPaddingTop();
+	    int deepest = mPinnedLevelCount - 1;
+	    View deepestView = mLevelSections[deepest].view;
+	    int stackBottom = mLevelTops[deepest] + deepestView.getHeight();
+	    int shadowHeight = mShadowDrawable == null ? 0 : Math.max(0, Math.min(mShadowHeight, mSectionsDistanceY));
+
+	    canvas.save();
+	    canvas.clipRect(pLeft, pTop, pLeft + deepestView.getWidth(), stackBottom + shadowHeight);
+
+	    if (shadowHeight > 0) {
+	        mShadowDrawable.setBounds(pLeft, stackBottom, pLeft + deepestView.getWidth(), stackBottom + mShadowHeight);
+	        mShadowDrawable.draw(canvas);
+	    }
+
+	    for (int level = deepest; level >= 0; level--) {
+	        canvas.save();
+	        canvas.translate(pLeft, mLevelTops[level]);
+	        drawChild(canvas, mLevelSections[level].view, getDrawingTime());
+	        canvas.restore();
+	    }
+
+	    canvas.restore();
 	}
 
 	//-- touch handling methods
@@ -421,17 +895,20 @@ public class PinnedSectionListView extends ListView {
     @Override
     public boolean dispatchTouchEvent(MotionEvent ev) {
 
+        if (mPinnedSectionLayout != null && mLevelIndex == null) { // pinned view is a real sibling, it gets its own events
+            return super.dispatchTouchEvent(ev);
+        }
+
         final float x = ev.getX();
         final float y = ev.getY();
         final int action = ev.getAction();
 
         if (action == MotionEvent.ACTION_DOWN
                 && mTouchTarget == null
-                && mPinnedSection != null
-                && isPinnedViewTouched(mPinnedSection.view, x, y)) { // create touch target
+                && findTouchedSection(x, y)) { // create touch target
 
             // user touched pinned view
-            mTouchTarget = mPinnedSection.view;
+            mTouchTarget = mTouchSection.view;
             mTouchPoint.x = x;
             mTouchPoint.y = y;
 
@@ -440,13 +917,20 @@ public class PinnedSectionListView extends ListView {
         }
 
         if (mTouchTarget != null) {
-            if (isPinnedViewTouched(mTouchTarget, x, y)) { // forward event to pinned view
+            if (mTouchLevel != -1) { // forward event to pinned view of touched level
+                if (isLevelViewTouched(mTouchLevel, x, y)) {
+                    MotionEvent event = MotionEvent.obtain(ev);
+                    event.offsetLocation(-getPaddingLeft(), -mLevelTops[mTouchLevel]);
+                    mTouchTarget.dispatchTouchEvent(event);
+                    event.recycle();
+                }
+            } else if (isPinnedViewTouched(mTouchTarget, x, y)) { // forward event to pinned view
                 mTouchTarget.dispatchTouchEvent(ev);
             }
 
             if (action == MotionEvent.ACTION_UP) { // perform onClick on pinned view
                 super.dispatchTouchEvent(ev);
-                performPinnedItemClick();
+                performPinnedItemClick(mTouchSection);
                 clearTouchTarget();
 
             } else if (action == MotionEvent.ACTION_CANCEL) { // cancel
@@ -476,6 +960,33 @@ public class PinnedSectionListView extends ListView {
         return super.dispatchTouchEvent(ev);
     }
 
+    /** Finds touched pinned section and stores it in touch fields. */
+    private boolean findTouchedSection(float x, float y) {
+        if (mPinnedLevelCount > 0) {
+            for (int level = 0; level < mPinnedLevelCount; level++) { // upper levels are on top
+                if (isLevelViewTouched(level, x, y)) {
+                    mTouchLevel = level;
+                    mTouchSection = mLevelSections[level];
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (mPinnedSection != null && isPinnedViewTouched(mPinnedSection.view, x, y)) {
+            mTouchLevel = -1;
+            mTouchSection = mPinnedSection;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isLevelViewTouched(int level, float x, float y) {
+        if (level >= mPinnedLevelCount) return false; // level is not pinned anymore
+        int top = Math.max(mLevelTops[level], getPaddingTop());
+        int bottom = mLevelTops[level] + mLevelSections[level].view.getHeight();
+        return x >= getPaddingLeft() && x < getWidth() - getPaddingRight() && y >= top && y < bottom;
+    }
+
     private boolean isPinnedViewTouched(View view, float x, float y) {
         view.getHitRect(mTouchRect);
 
@@ -491,28 +1002,57 @@ public class PinnedSectionListView extends ListView {
 
     private void clearTouchTarget() {
         mTouchTarget = null;
+        mTouchSection = null;
+        mTouchLevel = -1;
         if (mDownEvent != null) {
             mDownEvent.recycle();
             mDownEvent = null;
         }
     }
 
-    private boolean performPinnedItemClick() {
-        if (mPinnedSection == null) return false;
+    boolean performPinnedItemClick() {
+        return performPinnedItemClick(mPinnedSection);
+    }
+
+    private boolean performPinnedItemClick(PinnedSection pinnedSection) {
+        if (pinnedSection == null) return false;
 
         OnItemClickListener listener = getOnItemClickListener();
-        if (listener != null && getAdapter().isEnabled(mPinnedSection.position)) {
-            View view =  mPinnedSection.view;
+        if (listener != null && getAdapter().isEnabled(pinnedSection.position)) {
+            View view =  pinnedSection.view;
             playSoundEffect(SoundEffectConstants.CLICK);
             if (view != null) {
                 view.sendAccessibilityEvent(AccessibilityEvent.TYPE_VIEW_CLICKED);
             }
-            listener.onItemClick(this, view, mPinnedSection.position, mPinnedSection.id);
+            listener.onItemClick(this, view, pinnedSection.position, pinnedSection.id);
             return true;
         }
         return false;
     }
 
+    /** Returns 'true' if the data change being notified leaves current pinned view as it is. */
+    boolean isPinnedSectionUnchanged() {
+        if (mPinnedSection == null || mLevelIndex != null) return false;
+        ListAdapter adapter = getIndexedAdapter(getAdapter());
+        return adapter instanceof CollapsibleSectionListAdapter
+                && ((CollapsibleSectionListAdapter) adapter).isSectionViewUnchanged(mPinnedSection.id);
+    }
+
+    /** Returns adapter wrapped into header view adapter or given adapter, if it is not wrapped. */
+    static ListAdapter getIndexedAdapter(ListAdapter adapter) {
+        if (adapter instanceof HeaderViewListAdapter) {
+            adapter = ((HeaderViewListAdapter)adapter).getWrappedAdapter();
+        }
+        return adapter;
+    }
+
+    static PinnedSectionLevelAdapter getLevelAdapter(ListAdapter adapter) {
+        if (adapter instanceof HeaderViewListAdapter) {
+            adapter = ((HeaderViewListAdapter)adapter).getWrappedAdapter();
+        }
+        return adapter instanceof PinnedSectionLevelAdapter ? (PinnedSectionLevelAdapter) adapter : null;
+    }
+
     public static boolean isItemViewTypePinned(ListAdapter adapter, int viewType) {
         if (adapter instanceof HeaderViewListAdapter) {
             adapter = ((HeaderViewListAdapter)adapter).getWrappedAdapter();
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2013-2016 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.halfbit.pinnedsection;
+
+import android.database.DataSetObserver;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListAdapter;
+import android.widget.SectionIndexer;
+
+import java.util.List;
+
+import de.halfbit.pinnedsection.PinnedSectionListView.PinnedSectionListAdapter;
+
+/**
+ * Adapter merging child adapters into a single list, one section per child adapter. Every
+ * non-empty child gets a pinned section view of its own view type in front of its items. List
+ * positions are routed to child adapters through a prefix-sum array with binary search, and when
+ * a child adapter notifies a change, only start positions of subsequent sections are updated.
+ *
+ * <p>Child adapters are observed only while this adapter has observers itself, e.g. while it is
+ * set to a list, so child adapters outliving this adapter do not keep it alive.</p>
+ */
+public abstract class PinnedSectionMergeAdapter extends BaseAdapter
+        implements PinnedSectionListAdapter, SectionIndexer {
+
+    //-- inner classes
+
+    /** Observer of a single child adapter. */
+    private class ChildObserver extends DataSetObserver {
+        private final int mSection;
+
+        ChildObserver(int section) {
+            mSection = section;
+        }
+
+        @Override public void onChanged() {
+            updateSectionSize(mSection);
+            notifyDataSetChanged();
+        }
+
+        @Override public void onInvalidated() {
+            updateSectionSize(mSection);
+            notifyDataSetInvalidated();
+        }
+    }
+
+    //-- class fields
+
+    private final ListAdapter[] mAdapters;
+    private final ChildObserver[] mChildObservers;
+    private int mObserverCount;
+
+    /** First item view type of every child adapter, section view type of a child goes right before it. */
+    private final int[] mViewTypeOffsets;
+    private final boolean[] mPinnedViewTypes;
+    private final int mViewTypeCount;
+
+    /** List position of every section, last entry is total count. Empty sections have no rows. */
+    private final int[] mStarts;
+
+    // last resolved position, list asks for type, view and id of the same position in a row
+    private int mCachedPosition = -1;
+    private int mCachedSection;
+
+    //-- constructors
+
+    public PinnedSectionMergeAdapter(List<? extends ListAdapter> adapters) {
+        int count = adapters.size();
+        mAdapters = adapters.toArray(new ListAdapter[count]);
+        mChildObservers = new ChildObserver[count];
+        mViewTypeOffsets = new int[count];
+        mStarts = new int[count + 1];
+
+        int viewTypeCount = 0;
+        for (int i = 0; i < count; i++) {
+            viewTypeCount++; // section view type of this child
+            mViewTypeOffsets[i] = viewTypeCount;
+            viewTypeCount += mAdapters[i].getViewTypeCount();
+            mChildObservers[i] = new ChildObserver(i);
+        }
+        mViewTypeCount = viewTypeCount;
+
+        mPinnedViewTypes = new boolean[viewTypeCount];
+        for (int i = 0; i < count; i++) mPinnedViewTypes[getSectionViewType(i)] = true;
+        updateStarts();
+    }
+
+    //-- abstract methods
+
+    public abstract Object getSectionItem(int section);
+    public abstract View getSectionView(int section, View convertView, ViewGroup parent);
+
+    //-- public API methods
+
+    public int getSectionCount() {
+        return mAdapters.length;
+    }
+
+    public ListAdapter getSectionAdapter(int section) {
+        return mAdapters[section];
+    }
+
+    /** Returns view type of section view of given child adapter. */
+    public int getSectionViewType(int section) {
+        return mViewTypeOffsets[section] - 1;
+    }
+
+    /** Returns position in child adapter for given list position or -1, if it is a section view. */
+    public int getSectionAdapterPosition(int position) {
+        int section = getSectionForPosition(position);
+        return position - mStarts[section] - 1;
+    }
+
+    protected long getSectionId(int section) {
+        return -1 - section;
+    }
+
+    //-- adapter methods
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        super.registerDataSetObserver(observer);
+        if (mObserverCount++ == 0) {
+            // children might have changed while not observed
+            for (int i = 0; i < mAdapters.length; i++) mAdapters[i].registerDataSetObserver(mChildObservers[i]);
+            updateStarts();
+        }
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        super.unregisterDataSetObserver(observer);
+        if (--mObserverCount == 0) {
+            for (int i = 0; i < mAdapters.length; i++) mAdapters[i].unregisterDataSetObserver(mChildObservers[i]);
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return mStarts[mAdapters.length];
+    }
+
+    @Override
+    public Object getItem(int position) {
+        int childPosition = getSectionAdapterPosition(position);
+        return childPosition == -1
+                ? getSectionItem(mCachedSection)
+                : mAdapters[mCachedSection].getItem(childPosition);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        int childPosition = getSectionAdapterPosition(position);
+        return childPosition == -1
+                ? getSectionId(mCachedSection)
+                : mAdapters[mCachedSection].getItemId(childPosition);
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return mViewTypeCount;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        int childPosition = getSectionAdapterPosition(position);
+        if (childPosition == -1) return getSectionViewType(mCachedSection);
+        int viewType = mAdapters[mCachedSection].getItemViewType(childPosition);
+        return viewType < 0 ? viewType : viewType + mViewTypeOffsets[mCachedSection]; // keep ignored types
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        int childPosition = getSectionAdapterPosition(position);
+        return childPosition == -1
+                ? getSectionView(mCachedSection, convertView, parent)
+                : mAdapters[mCachedSection].getView(childPosition, convertView, parent);
+    }
+
+    @Override
+    public boolean areAllItemsEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isEnabled(int position) {
+        int childPosition = getSectionAdapterPosition(position);
+        return childPosition == -1 || mAdapters[mCachedSection].isEnabled(childPosition);
+    }
+
+    @Override
+    public boolean isItemViewTypePinned(int viewType) {
+        return viewType >= 0 && viewType < mViewTypeCount && mPinnedViewTypes[viewType];
+    }
+
+    //-- section indexer methods
+
+    @Override
+    public Object[] getSections() {
+        Object[] sections = new Object[mAdapters.length];
+        for (int i = 0; i < sections.length; i++) sections[i] = getSectionItem(i);
+        return sections;
+    }
+
+    @Override
+    public int getPositionForSection(int section) {
+        if (section >= mAdapters.length) section = mAdapters.length - 1;
+        if (section < 0) return 0;
+        return mStarts[section];
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        if (position == mCachedPosition) return mCachedSection;
+
+        // find last section starting at or before position, it is the non-empty one
+        int low = 0, high = mAdapters.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (mStarts[middle] <= position) low = middle;
+            else high = middle - 1;
+        }
+
+        mCachedPosition = position;
+        mCachedSection = low;
+        return low;
+    }
+
+    //-- implementation methods
+
+    private int getSectionSize(int section) {
+        int count = mAdapters[section].getCount();
+        return count == 0 ? 0 : count + 1;
+    }
+
+    /** Recomputes start positions of all sections. */
+    private void updateStarts() {
+        for (int i = 0; i < mAdapters.length; i++) mStarts[i + 1] = mStarts[i] + getSectionSize(i);
+        mCachedPosition = -1;
+    }
+
+    /** Updates start positions of sections following the changed one. */
+    void updateSectionSize(int section) {
+        int delta = getSectionSize(section) - (mStarts[section + 1] - mStarts[section]);
+        if (delta != 0) {
+            for (int i = section + 1; i < mStarts.length; i++) mStarts[i] += delta;
+        }
+        mCachedPosition = -1;
+    }
+
+}
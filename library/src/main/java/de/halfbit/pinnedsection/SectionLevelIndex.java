@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013-2016 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.halfbit.pinnedsection;
+
+import de.halfbit.pinnedsection.PinnedSectionListView.PinnedSectionLevelAdapter;
+
+/**
+ * Sorted positions of pinned sections for every nesting level, lookups are O(log n). Index is
+ * built lazily with a single O(n) pass over the adapter on the first lookup after a data change.
+ * Positions are kept as adapter positions and translated with the current header count, so
+ * adding or removing header views does not invalidate the index.
+ */
+final class SectionLevelIndex {
+
+    private final int mLevelCount;
+    private final int[][] mPositions;
+    private final int[] mCounts;
+    private boolean mValid;
+    private int mHeadersCount;
+
+    SectionLevelIndex(int levelCount) {
+        mLevelCount = levelCount;
+        mPositions = new int[levelCount][16];
+        mCounts = new int[levelCount];
+    }
+
+    int getLevelCount() {
+        return mLevelCount;
+    }
+
+    void invalidate() {
+        mValid = false;
+    }
+
+    /** Builds index for given adapter, if it is not valid anymore, and sets header count of the list. */
+    void ensure(PinnedSectionLevelAdapter adapter, int headersCount) {
+        mHeadersCount = headersCount;
+        if (mValid) return;
+        for (int level = 0; level < mLevelCount; level++) mCounts[level] = 0;
+
+        for (int position = 0, count = adapter.getCount(); position < count; position++) {
+            int viewType = adapter.getItemViewType(position);
+            if (viewType < 0 || !adapter.isItemViewTypePinned(viewType)) continue;
+
+            int level = adapter.getPinnedViewTypeLevel(viewType);
+            if (level < 0 || level >= mLevelCount) {
+                throw new IllegalStateException("Pinned view type " + viewType
+                        + " has level " + level + " outside of [0, " + mLevelCount + ")");
+            }
+
+            int[] positions = mPositions[level];
+            if (mCounts[level] == positions.length) {
+                int[] grown = new int[positions.length * 2];
+                System.arraycopy(positions, 0, grown, 0, positions.length);
+                mPositions[level] = positions = grown;
+            }
+            positions[mCounts[level]++] = position;
+        }
+        mValid = true;
+    }
+
+    /** Returns list position of the last section of given level at or before given list position, or -1. */
+    int findSectionAtOrBefore(int level, int position) {
+        int index = upperBound(level, position - mHeadersCount) - 1;
+        return index < 0 ? -1 : mPositions[level][index] + mHeadersCount;
+    }
+
+    /** Returns list position of the first section of given or any upper level after given list position, or -1. */
+    int findNextSectionUpToLevel(int level, int position) {
+        int next = -1;
+        for (int l = 0; l <= level; l++) {
+            int index = upperBound(l, position - mHeadersCount);
+            if (index < mCounts[l]) {
+                int candidate = mPositions[l][index];
+                if (next == -1 || candidate < next) next = candidate;
+            }
+        }
+        return next == -1 ? -1 : next + mHeadersCount;
+    }
+
+    /** Returns index of the first section of given level after given adapter position. */
+    private int upperBound(int level, int position) {
+        int[] positions = mPositions[level];
+        int low = 0, high = mCounts[level];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (positions[middle] <= position) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright (C) 2013-2016 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.halfbit.pinnedsection;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.view.View;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.SectionIndexer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.halfbit.pinnedsection.PinnedSectionListView.PinnedSectionListAdapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scrolls lists through scripted flings and checks work done by {@link PinnedSectionListView}
+ * against budgets recorded per scenario. Scripts are deterministic, so counts only change when
+ * the code does. When a change makes scrolling cheaper, lower the budget to the new counts.
+ *
+ * <p>Every scenario also runs in a plain {@link ListView} with the same adapter, headers, footers,
+ * padding and script, which checks that pinning adds at most one getView() and one measure per
+ * pinned rebind, a bounded number of adapter calls per scroll callback and no invalidations.</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class PinnedSectionListViewScrollTest {
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 800;
+    private static final int ROW_HEIGHT = 48;
+
+    private static final int SECTION_COUNT = 50;
+    private static final int SECTION_LENGTH = 200; // items per section, long enough to expose rescans
+
+    /** Adapter calls allowed per scroll callback on top of visible rows: first visible and indexer checks. */
+    private static final int CALLBACK_SLACK = 2;
+
+    //-- scenarios
+
+    // budgets: getView, getItemViewType, indexer calls, measures, invalidations, pinned rebinds
+
+    @Test
+    public void scrollWithoutIndexer() {
+        assertBudgets(new Scenario("plain")
+                .budget(2144, 24633, 0, 2133, 14, 12));
+    }
+
+    @Test
+    public void scrollWithIndexer() {
+        assertBudgets(new Scenario("indexed").indexed()
+                .budget(2144, 23396, 1862, 2133, 14, 12));
+    }
+
+    @Test
+    public void scrollWithHeadersAndFooters() {
+        assertBudgets(new Scenario("headers").headers(3).footers(2)
+                .budget(2139, 24602, 0, 2128, 14, 12));
+    }
+
+    @Test
+    public void scrollWithHeadersAndFootersAndIndexer() {
+        assertBudgets(new Scenario("headers, indexed").headers(3).footers(2).indexed()
+                .budget(2139, 23374, 1862, 2128, 14, 12));
+    }
+
+    @Test
+    public void scrollWithPadding() {
+        assertBudgets(new Scenario("padding").padding(40)
+                .budget(2140, 23225, 0, 2129, 14, 12));
+    }
+
+    @Test
+    public void scrollWithPaddingAndIndexer() {
+        assertBudgets(new Scenario("padding, indexed").padding(40).indexed()
+                .budget(2140, 21987, 1864, 2129, 14, 12));
+    }
+
+    @Test
+    public void headerAddedAfterAdapterShiftsPinnedSection() {
+        Context context = RuntimeEnvironment.application;
+        CountingListView list = new CountingListView(context);
+        installScrollListener(list);
+        CountingAdapter adapter = new CountingAdapter(context, new Counters());
+        list.setAdapter(adapter);
+        layout(list);
+
+        // scroll into the middle of the second section, so the scanned range gets cached
+        Scenario scenario = new Scenario("header added");
+        int[] expected = new int[] { expectedSectionPosition(list, scenario) };
+        for (int dy : fling(240, 2)) step(list, dy, scenario, expected);
+        assertTrue(list.getFirstVisiblePosition() > SECTION_LENGTH + 1);
+
+        list.addHeaderView(new CountingView(context, new Counters()));
+        scenario.headers(1);
+        layout(list);
+        track(list, scenario, expected);
+
+        for (int dy : fling(120, 2)) step(list, dy, scenario, expected);
+        for (int dy : fling(-120, 2)) step(list, dy, scenario, expected);
+    }
+
+    //-- budgets
+
+    private void assertBudgets(Scenario scenario) {
+        Counters plain = run(scenario, false);
+        Counters pinned = run(scenario, true);
+        String name = scenario.name + ": ";
+
+        // recorded budgets
+        assertBudget(name + "getView()", pinned.getView, scenario.budget.getView);
+        assertBudget(name + "getItemViewType()", pinned.getItemViewType, scenario.budget.getItemViewType);
+        assertBudget(name + "indexer calls", pinned.indexer, scenario.budget.indexer);
+        assertBudget(name + "measures", pinned.measures, scenario.budget.measures);
+        assertBudget(name + "invalidations", pinned.invalidations, scenario.budget.invalidations);
+        assertBudget(name + "pinned rebinds", pinned.rebinds, scenario.budget.rebinds);
+
+        // work added by pinning, compared to a plain list
+        int maxVisible = HEIGHT / ROW_HEIGHT + 2;
+        int rescans = scenario.indexed ? 0 : (pinned.transitions + 1) * (SECTION_LENGTH + 1);
+
+        assertTrue(name + "pinned rebinds " + pinned.rebinds + " for " + pinned.transitions + " section changes",
+                pinned.rebinds <= pinned.transitions + 2);
+        assertTrue(name + "getView() " + pinned.getView + " over plain " + plain.getView,
+                pinned.getView <= plain.getView + pinned.rebinds);
+        assertTrue(name + "measures " + pinned.measures + " over plain " + plain.measures,
+                pinned.measures <= plain.measures + pinned.rebinds);
+        assertTrue(name + "invalidations " + pinned.invalidations + " over plain " + plain.invalidations,
+                pinned.invalidations <= plain.invalidations);
+        assertTrue(name + "getItemViewType() " + pinned.getItemViewType + " over plain " + plain.getItemViewType
+                        + " in " + pinned.scrollCallbacks + " scroll callbacks",
+                pinned.getItemViewType <= plain.getItemViewType + pinned.rebinds + rescans
+                        + pinned.scrollCallbacks * (maxVisible + CALLBACK_SLACK));
+        assertTrue(name + "indexer calls " + pinned.indexer + " in " + pinned.scrollCallbacks + " scroll callbacks",
+                pinned.indexer <= 2 * pinned.scrollCallbacks);
+    }
+
+    private static void assertBudget(String name, int count, int budget) {
+        assertTrue(name + " " + count + " over budget " + budget, count <= budget);
+    }
+
+    /** Runs scripted flings over a fresh list and returns counted work. */
+    private Counters run(Scenario scenario, boolean pinned) {
+        Context context = RuntimeEnvironment.application;
+        final Counters counters = new Counters();
+
+        ListView list = pinned ? new CountingListView(context) : new CountingPlainListView(context);
+        for (int i = 0; i < scenario.headers; i++) list.addHeaderView(new CountingView(context, new Counters()));
+        for (int i = 0; i < scenario.footers; i++) list.addFooterView(new CountingView(context, new Counters()));
+        list.setPadding(0, scenario.padding, 0, scenario.padding);
+        list.setAdapter(scenario.indexed
+                ? new IndexedCountingAdapter(context, counters)
+                : new CountingAdapter(context, counters));
+        list.setOnScrollListener(new OnScrollListener() {
+            @Override public void onScrollStateChanged(AbsListView view, int scrollState) { }
+            @Override public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                counters.scrollCallbacks++;
+            }
+        });
+        installScrollListener(list);
+        layout(list);
+
+        // fling from top down and back, then along the end of the list into footers
+        int[] expected = new int[] { expectedSectionPosition(list, scenario) };
+        for (int dy : script()) step(list, dy, scenario, pinned ? expected : null);
+
+        list.setSelection(list.getCount() - 40);
+        layout(list);
+        if (pinned) track((CountingListView) list, scenario, expected);
+        for (int dy : fling(240, 2)) step(list, dy, scenario, pinned ? expected : null);
+        for (int dy : fling(240, 2)) step(list, dy, scenario, pinned ? expected : null);
+        for (int dy : fling(-240, 2)) step(list, dy, scenario, pinned ? expected : null);
+
+        if (pinned) {
+            CountingListView countingList = (CountingListView) list;
+            counters.rebinds = countingList.rebinds;
+            counters.invalidations = countingList.invalidations;
+            counters.transitions = countingList.transitions;
+        } else {
+            counters.invalidations = ((CountingPlainListView) list).invalidations;
+        }
+        return counters;
+    }
+
+    /** Scrolls list by given distance and checks pinned section, if list is pinned. */
+    private static void step(ListView list, int dy, Scenario scenario, int[] expected) {
+        list.scrollListBy(dy);
+        if (expected != null) track((CountingListView) list, scenario, expected);
+    }
+
+    /** Counts changes of the section under the top edge and checks pinned section. */
+    private static void track(CountingListView list, Scenario scenario, int[] expected) {
+        int sectionPosition = expectedSectionPosition(list, scenario);
+        if (sectionPosition != expected[0]) {
+            expected[0] = sectionPosition;
+            list.transitions++;
+        }
+        assertPinnedSection(list, scenario);
+    }
+
+    private static void assertPinnedSection(PinnedSectionListView list, Scenario scenario) {
+        int firstVisiblePosition = list.getFirstVisiblePosition();
+        int sectionPosition = expectedSectionPosition(list, scenario);
+        boolean sectionAtTop = sectionPosition == firstVisiblePosition
+                && list.getChildAt(0).getTop() == list.getPaddingTop();
+        if (sectionPosition == -1 || sectionAtTop || list.getChildCount() < 2) {
+            assertNull(scenario.name + ": nothing to pin at " + firstVisiblePosition, list.mPinnedSection);
+        } else {
+            assertNotNull(scenario.name + ": no pinned section at " + firstVisiblePosition, list.mPinnedSection);
+            assertEquals(scenario.name + ": pinned section at " + firstVisiblePosition,
+                    sectionPosition, list.mPinnedSection.position);
+        }
+    }
+
+    /** Returns list position of the section of the first visible item, or -1 if it is a header. */
+    private static int expectedSectionPosition(ListView list, Scenario scenario) {
+        int position = list.getFirstVisiblePosition() - scenario.headers;
+        if (position < 0) return -1;
+        int itemCount = SECTION_COUNT * (SECTION_LENGTH + 1);
+        if (position >= itemCount) position = itemCount - 1; // footers
+        return position - position % (SECTION_LENGTH + 1) + scenario.headers;
+    }
+
+    //-- scripts
+
+    /** Returns steps of flings down and back up, crossing several sections each way. */
+    private static List<Integer> script() {
+        List<Integer> steps = new ArrayList<Integer>();
+        for (int i = 0; i < 4; i++) steps.addAll(fling(240, 2));
+        for (int i = 0; i < 2; i++) steps.addAll(fling(-240, 2));
+        steps.addAll(fling(90, 1)); // slow fling, odd step sizes land section views on the top edge
+        return steps;
+    }
+
+    /** Returns steps of a fling starting with given velocity in pixels per frame, slowing down linearly. */
+    private static List<Integer> fling(int velocity, int deceleration) {
+        List<Integer> steps = new ArrayList<Integer>();
+        int sign = velocity < 0 ? -1 : 1;
+        for (int v = Math.abs(velocity); v > 0; v -= deceleration) steps.add(sign * v);
+        return steps;
+    }
+
+    /** Robolectric shadows setOnScrollListener() and does not pass listener to the list, this does it. */
+    private static void installScrollListener(AbsListView list) {
+        try {
+            Field field = AbsListView.class.getDeclaredField("mOnScrollListener");
+            field.setAccessible(true);
+            field.set(list, Shadows.shadowOf(list).getOnScrollListener());
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void layout(View view) {
+        view.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+        view.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    //-- test doubles
+
+    static final class Scenario {
+        final String name;
+        boolean indexed;
+        int headers;
+        int footers;
+        int padding;
+        final Counters budget = new Counters();
+
+        Scenario(String name) { this.name = name; }
+
+        Scenario indexed() { indexed = true; return this; }
+        Scenario headers(int count) { headers = count; return this; }
+        Scenario footers(int count) { footers = count; return this; }
+        Scenario padding(int padding) { this.padding = padding; return this; }
+
+        Scenario budget(int getView, int getItemViewType, int indexer, int measures, int invalidations, int rebinds) {
+            budget.getView = getView;
+            budget.getItemViewType = getItemViewType;
+            budget.indexer = indexer;
+            budget.measures = measures;
+            budget.invalidations = invalidations;
+            budget.rebinds = rebinds;
+            return this;
+        }
+    }
+
+    static final class Counters {
+        int getView;
+        int getItemViewType;
+        int indexer;
+        int measures;
+        int invalidations;
+        int rebinds;
+        int scrollCallbacks;
+        int transitions;
+    }
+
+    /** Row of fixed height counting its measure passes. */
+    static class CountingView extends View {
+        private final Counters mCounters;
+
+        CountingView(Context context, Counters counters) {
+            super(context);
+            mCounters = counters;
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            mCounters.measures++;
+            setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), ROW_HEIGHT);
+        }
+    }
+
+    /** Sections of equal length, each followed by its items. Section view type is 1. */
+    static class CountingAdapter extends BaseAdapter implements PinnedSectionListAdapter {
+        private final Context mContext;
+        final Counters mCounters;
+
+        CountingAdapter(Context context, Counters counters) {
+            mContext = context;
+            mCounters = counters;
+        }
+
+        @Override public int getCount() { return SECTION_COUNT * (SECTION_LENGTH + 1); }
+        @Override public Object getItem(int position) { return position; }
+        @Override public long getItemId(int position) { return position; }
+        @Override public int getViewTypeCount() { return 2; }
+
+        @Override
+        public int getItemViewType(int position) {
+            mCounters.getItemViewType++;
+            return position % (SECTION_LENGTH + 1) == 0 ? 1 : 0;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            mCounters.getView++;
+            return convertView != null ? convertView : new CountingView(mContext, mCounters);
+        }
+
+        @Override
+        public boolean isItemViewTypePinned(int viewType) {
+            return viewType == 1;
+        }
+    }
+
+    static class IndexedCountingAdapter extends CountingAdapter implements SectionIndexer {
+
+        IndexedCountingAdapter(Context context, Counters counters) {
+            super(context, counters);
+        }
+
+        @Override
+        public Object[] getSections() {
+            return new Object[SECTION_COUNT];
+        }
+
+        @Override
+        public int getPositionForSection(int section) {
+            mCounters.indexer++;
+            return section * (SECTION_LENGTH + 1);
+        }
+
+        @Override
+        public int getSectionForPosition(int position) {
+            mCounters.indexer++;
+            return position / (SECTION_LENGTH + 1);
+        }
+    }
+
+    /** Pinned list counting pinned rebinds and invalidations. Counters have no initializers, so counts from super constructor are kept. */
+    static class CountingListView extends PinnedSectionListView {
+        int rebinds;
+        int invalidations;
+        int transitions;
+
+        CountingListView(Context context) {
+            super(context, null);
+        }
+
+        @Override
+        PinnedSection bindPinnedSection(PinnedSection pinnedShadow, int position) {
+            rebinds++;
+            return super.bindPinnedSection(pinnedShadow, position);
+        }
+
+        @Override public void invalidate() { invalidations++; super.invalidate(); }
+        @Override public void invalidate(Rect dirty) { invalidations++; super.invalidate(dirty); }
+        @Override public void invalidate(int l, int t, int r, int b) { invalidations++; super.invalidate(l, t, r, b); }
+    }
+
+    /** Plain list counting invalidations, used as baseline. */
+    static class CountingPlainListView extends ListView {
+        int invalidations;
+
+        CountingPlainListView(Context context) {
+            super(context);
+        }
+
+        @Override public void invalidate() { invalidations++; super.invalidate(); }
+        @Override public void invalidate(Rect dirty) { invalidations++; super.invalidate(dirty); }
+        @Override public void invalidate(int l, int t, int r, int b) { invalidations++; super.invalidate(l, t, r, b); }
+    }
+
+}